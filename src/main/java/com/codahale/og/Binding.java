@@ -1,27 +1,59 @@
 package com.codahale.og;
 
-import java.lang.reflect.Method;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
 
-class Binding {
-    private final Method method;
-    private final Object provider;
+abstract class Binding {
     private final boolean singleton;
+    private final BindingMetadata metadata;
+    private BindingKey[] parameterKeys;
 
-    Binding(Method method, Object provider, boolean singleton) {
-        this.method = method;
-        this.provider = provider;
+    Binding(boolean singleton, BindingMetadata metadata) {
         this.singleton = singleton;
+        this.metadata = metadata;
     }
 
-    Object getProvider() {
-        return provider;
-    }
-
-    Method getMethod() {
-        return method;
+    // worked out the first time the binding is used, so unused bindings cost nothing
+    BindingKey[] getParameterKeys() {
+        if (parameterKeys == null) {
+            this.parameterKeys = parameterKeys(getGenericParameterTypes(),
+                                               getParameterAnnotations());
+        }
+        return parameterKeys;
     }
 
     boolean isSingleton() {
         return singleton;
     }
+
+    // null unless metadata is being recorded and the binding can be saved
+    BindingMetadata getMetadata() {
+        return metadata;
+    }
+
+    abstract Type[] getGenericParameterTypes();
+
+    abstract Annotation[][] getParameterAnnotations();
+
+    abstract Object newInstance(Object[] parameters) throws InvocationTargetException,
+            IllegalAccessException, InstantiationException;
+
+    private static BindingKey[] parameterKeys(Type[] parameterTypes, Annotation[][] annotations) {
+        final BindingKey[] keys = new BindingKey[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            final Named named = findNames(annotations[i]);
+            keys[i] = BindingKey.of(parameterTypes[i], named == null ? null : named.value());
+        }
+        return keys;
+    }
+
+    private static Named findNames(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof Named) {
+                return (Named) annotation;
+            }
+        }
+        return null;
+    }
 }
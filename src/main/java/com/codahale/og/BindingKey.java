@@ -1,14 +1,44 @@
 package com.codahale.og;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
 import com.google.common.reflect.TypeToken;
 
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentMap;
+
 class BindingKey {
+    // Keys are canonicalized, so equal keys are almost always identical. Both caches only hold
+    // keys weakly, and a key is the only thing which holds its classes, so a class loader whose
+    // types are no longer bound anywhere can still be unloaded.
+    private static final Interner<BindingKey> KEYS = Interners.newWeakInterner();
+    private static final ConcurrentMap<Class<?>, BindingKey> UNNAMED_CLASS_KEYS =
+            new MapMaker().weakKeys().weakValues().makeMap();
+
+    static BindingKey of(Type type, String name) {
+        if (name == null && type instanceof Class) {
+            // unnamed class keys are only ever made here, so they don't need interning
+            final Class<?> klass = (Class<?>) mapType(type);
+            final BindingKey key = UNNAMED_CLASS_KEYS.get(klass);
+            if (key != null) {
+                return key;
+            }
+            final BindingKey created = new BindingKey(TypeToken.of(klass), null);
+            final BindingKey existing = UNNAMED_CLASS_KEYS.putIfAbsent(klass, created);
+            return existing == null ? created : existing;
+        }
+        return KEYS.intern(new BindingKey(TypeToken.of(mapType(type)), name));
+    }
+
     private final TypeToken<?> type;
     private final String name;
+    private final int hashCode;
 
-    BindingKey(TypeToken<?> type, String name) {
+    private BindingKey(TypeToken<?> type, String name) {
         this.type = type;
         this.name = name;
+        this.hashCode = 31 * type.hashCode() + (name != null ? name.hashCode() : 0);
     }
 
     @Override
@@ -16,13 +46,14 @@ class BindingKey {
         if (this == obj) { return true; }
         if (obj == null || getClass() != obj.getClass()) { return false; }
         final BindingKey key = (BindingKey) obj;
-        return !(getName() != null ? !getName().equals(key.getName()) : key.getName() != null) &&
+        return hashCode == key.hashCode &&
+                !(getName() != null ? !getName().equals(key.getName()) : key.getName() != null) &&
                 getType().equals(key.getType());
     }
 
     @Override
     public int hashCode() {
-        return 31 * getType().hashCode() + (getName() != null ? getName().hashCode() : 0);
+        return hashCode;
     }
 
     @Override
@@ -41,4 +72,41 @@ class BindingKey {
     boolean isAssignableFrom(BindingKey key) {
         return type.isAssignableFrom(key.type) && (name == null || name.equals(key.name));
     }
+
+    // map primitive types to their boxed types
+    private static Type mapType(Type type) {
+        if (byte.class.equals(type)) {
+            return Byte.class;
+        }
+
+        if (short.class.equals(type)) {
+            return Short.class;
+        }
+
+        if (int.class.equals(type)) {
+            return Integer.class;
+        }
+
+        if (long.class.equals(type)) {
+            return Long.class;
+        }
+
+        if (float.class.equals(type)) {
+            return Float.class;
+        }
+
+        if (double.class.equals(type)) {
+            return Double.class;
+        }
+
+        if (boolean.class.equals(type)) {
+            return Boolean.class;
+        }
+
+        if (char.class.equals(type)) {
+            return Character.class;
+        }
+
+        return type;
+    }
 }
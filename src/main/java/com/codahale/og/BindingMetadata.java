@@ -0,0 +1,83 @@
+package com.codahale.og;
+
+import java.lang.reflect.Type;
+
+class BindingMetadata {
+    // returns null if any of the types can't be encoded
+    static BindingMetadata of(String memberName,
+                              Class<?>[] parameterClasses,
+                              BindingKey key,
+                              boolean singleton) {
+        try {
+            final String[] classes = new String[parameterClasses.length];
+            for (int i = 0; i < parameterClasses.length; i++) {
+                classes[i] = TypeNames.encode(parameterClasses[i]);
+            }
+            return new BindingMetadata(memberName,
+                                       classes,
+                                       TypeNames.encode(key.getType().getType()),
+                                       key.getName(),
+                                       singleton);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private final String memberName;
+    private final String[] parameterClasses;
+    private final String type;
+    private final String name;
+    private final boolean singleton;
+
+    BindingMetadata(String memberName,
+                    String[] parameterClasses,
+                    String type,
+                    String name,
+                    boolean singleton) {
+        this.memberName = memberName;
+        this.parameterClasses = parameterClasses;
+        this.type = type;
+        this.name = name;
+        this.singleton = singleton;
+    }
+
+    // null for constructors
+    String getMemberName() {
+        return memberName;
+    }
+
+    String[] getParameterClasses() {
+        return parameterClasses;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isSingleton() {
+        return singleton;
+    }
+
+    // compares names rather than loading the classes
+    boolean hasParameterClasses(Class<?>[] classes) {
+        if (classes.length != parameterClasses.length) {
+            return false;
+        }
+        for (int i = 0; i < classes.length; i++) {
+            if (!parameterClasses[i].equals(TypeNames.encode(classes[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a plain class is used as is, so only generic types need to be decoded
+    BindingKey getKey(Class<?> rawType, TypeNames.Decoder decoder) throws ClassNotFoundException {
+        final Type decoded = type.equals(TypeNames.encode(rawType)) ? rawType : decoder.decode(type);
+        return BindingKey.of(decoded, name);
+    }
+}
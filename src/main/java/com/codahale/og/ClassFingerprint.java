@@ -0,0 +1,58 @@
+package com.codahale.og;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+
+class ClassFingerprint {
+    private ClassFingerprint() { /* static methods only */ }
+
+    // Identifies the bytecode a class was loaded from, or returns null if it can't be found. A
+    // class loaded from a directory or jar is identified by the size and modification time of
+    // its class file or jar, so nothing needs to be read; anything else is hashed.
+    static String of(Class<?> klass) {
+        try {
+            final CodeSource source = klass.getProtectionDomain().getCodeSource();
+            final URL location = source == null ? null : source.getLocation();
+            if (location != null && "file".equals(location.getProtocol())) {
+                final File file = new File(location.toURI());
+                if (file.isDirectory()) {
+                    final String path = klass.getName().replace('.', File.separatorChar);
+                    return of(new File(file, path + ".class"));
+                }
+                return of(file);
+            }
+
+            final String name = klass.getName();
+            final InputStream input =
+                    klass.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+            if (input == null) {
+                return null;
+            }
+            try {
+                return Hashing.sha1().hashBytes(ByteStreams.toByteArray(input)).toString();
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    private static String of(File file) {
+        final long modified = file.lastModified();
+        return modified == 0 ? null : file.length() + ":" + modified;
+    }
+}
@@ -0,0 +1,33 @@
+package com.codahale.og;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
+
+class ConstructorBinding extends Binding {
+    private final Constructor<?> constructor;
+
+    ConstructorBinding(Constructor<?> constructor,
+                       boolean singleton,
+                       BindingMetadata metadata) {
+        super(singleton, metadata);
+        this.constructor = constructor;
+    }
+
+    @Override
+    Type[] getGenericParameterTypes() {
+        return constructor.getGenericParameterTypes();
+    }
+
+    @Override
+    Annotation[][] getParameterAnnotations() {
+        return constructor.getParameterAnnotations();
+    }
+
+    @Override
+    Object newInstance(Object[] parameters) throws InvocationTargetException,
+            IllegalAccessException, InstantiationException {
+        return constructor.newInstance(parameters);
+    }
+}
@@ -0,0 +1,252 @@
+package com.codahale.og;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Serialized as a table of strings followed by indexes into it rather than as a graph of objects,
+// which is several times faster to read and leaves nothing but this class to deserialize.
+class GraphMetadata implements Serializable {
+    private static final long serialVersionUID = 2L;
+    private static final int NULL = -1;
+
+    private transient Map<String, String> fingerprints;
+    private transient Map<String, List<BindingMetadata>> modules;
+    private transient Map<String, BindingMetadata> constructors;
+    private transient List<BindingMetadata> singletonOrder;
+
+    // a binding may be memoized under several keys, but it's only constructed once
+    private transient Set<BindingMetadata> singletons;
+
+    GraphMetadata() {
+        this.fingerprints = Maps.newHashMap();
+        this.modules = Maps.newHashMap();
+        this.constructors = Maps.newHashMap();
+        this.singletonOrder = Lists.newArrayList();
+        this.singletons = Sets.newHashSet();
+    }
+
+    // returns null unless the module's metadata was recorded from the same bytecode
+    List<BindingMetadata> getModule(Class<?> klass, String fingerprint) {
+        return isCurrent(klass, fingerprint) ? modules.get(klass.getName()) : null;
+    }
+
+    void putModule(Class<?> klass, String fingerprint, List<BindingMetadata> bindings) {
+        fingerprints.put(klass.getName(), fingerprint);
+        modules.put(klass.getName(), bindings);
+    }
+
+    // returns null unless the class's metadata was recorded from the same bytecode
+    BindingMetadata getConstructor(Class<?> klass, String fingerprint) {
+        return isCurrent(klass, fingerprint) ? constructors.get(klass.getName()) : null;
+    }
+
+    void putConstructor(Class<?> klass, String fingerprint, BindingMetadata binding) {
+        fingerprints.put(klass.getName(), fingerprint);
+        constructors.put(klass.getName(), binding);
+    }
+
+    List<BindingMetadata> getSingletonOrder() {
+        return singletonOrder;
+    }
+
+    void addSingleton(BindingMetadata binding) {
+        if (singletons.add(binding)) {
+            singletonOrder.add(binding);
+        }
+    }
+
+    private boolean isCurrent(Class<?> klass, String fingerprint) {
+        return fingerprint != null && fingerprint.equals(fingerprints.get(klass.getName()));
+    }
+
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+
+        final Map<String, Integer> strings = Maps.newLinkedHashMap();
+        for (Map.Entry<String, List<BindingMetadata>> entry : modules.entrySet()) {
+            index(strings, entry.getKey());
+            index(strings, fingerprints.get(entry.getKey()));
+            for (BindingMetadata binding : entry.getValue()) {
+                index(strings, binding);
+            }
+        }
+        for (Map.Entry<String, BindingMetadata> entry : constructors.entrySet()) {
+            index(strings, entry.getKey());
+            index(strings, fingerprints.get(entry.getKey()));
+            index(strings, entry.getValue());
+        }
+
+        output.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            output.writeUTF(string);
+        }
+
+        // bindings are numbered in the order they're written, so the singleton order can refer
+        // to them
+        final Map<BindingMetadata, Integer> bindings = Maps.newIdentityHashMap();
+        output.writeInt(modules.size());
+        for (Map.Entry<String, List<BindingMetadata>> entry : modules.entrySet()) {
+            output.writeInt(strings.get(entry.getKey()));
+            output.writeInt(strings.get(fingerprints.get(entry.getKey())));
+            output.writeInt(entry.getValue().size());
+            for (BindingMetadata binding : entry.getValue()) {
+                write(output, strings, binding);
+                bindings.put(binding, bindings.size());
+            }
+        }
+
+        output.writeInt(constructors.size());
+        for (Map.Entry<String, BindingMetadata> entry : constructors.entrySet()) {
+            output.writeInt(strings.get(entry.getKey()));
+            output.writeInt(strings.get(fingerprints.get(entry.getKey())));
+            write(output, strings, entry.getValue());
+            bindings.put(entry.getValue(), bindings.size());
+        }
+
+        // singletons from bindings which weren't saved can't be replayed
+        final List<Integer> order = Lists.newArrayList();
+        for (BindingMetadata binding : singletonOrder) {
+            final Integer index = bindings.get(binding);
+            if (index != null) {
+                order.add(index);
+            }
+        }
+        output.writeInt(order.size());
+        for (int index : order) {
+            output.writeInt(index);
+        }
+    }
+
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        this.fingerprints = Maps.newHashMap();
+        this.modules = Maps.newHashMap();
+        this.constructors = Maps.newHashMap();
+        this.singletonOrder = Lists.newArrayList();
+        this.singletons = Sets.newHashSet();
+
+        // counts aren't trusted to size anything, so a bogus one just runs out of input
+        final List<String> strings = Lists.newArrayList();
+        for (int i = checkCount(input.readInt()); i > 0; i--) {
+            strings.add(input.readUTF());
+        }
+
+        final List<BindingMetadata> bindings = Lists.newArrayList();
+        for (int i = checkCount(input.readInt()); i > 0; i--) {
+            final String klass = readString(input, strings);
+            final String fingerprint = readString(input, strings);
+            final List<BindingMetadata> module = Lists.newArrayList();
+            for (int j = checkCount(input.readInt()); j > 0; j--) {
+                module.add(readBinding(input, strings));
+            }
+            fingerprints.put(klass, fingerprint);
+            modules.put(klass, module);
+            bindings.addAll(module);
+        }
+
+        for (int i = checkCount(input.readInt()); i > 0; i--) {
+            final String klass = readString(input, strings);
+            final String fingerprint = readString(input, strings);
+            final BindingMetadata binding = readBinding(input, strings);
+            fingerprints.put(klass, fingerprint);
+            constructors.put(klass, binding);
+            bindings.add(binding);
+        }
+
+        for (int i = checkCount(input.readInt()); i > 0; i--) {
+            final int index = input.readInt();
+            if (index < 0 || index >= bindings.size()) {
+                throw new InvalidObjectException("Invalid binding index: " + index);
+            }
+            addSingleton(bindings.get(index));
+        }
+    }
+
+    private static void index(Map<String, Integer> strings, BindingMetadata binding) {
+        index(strings, binding.getMemberName());
+        for (String parameterClass : binding.getParameterClasses()) {
+            index(strings, parameterClass);
+        }
+        index(strings, binding.getType());
+        index(strings, binding.getName());
+    }
+
+    private static void index(Map<String, Integer> strings, String string) {
+        if (string != null && !strings.containsKey(string)) {
+            strings.put(string, strings.size());
+        }
+    }
+
+    private static void write(ObjectOutputStream output,
+                              Map<String, Integer> strings,
+                              BindingMetadata binding) throws IOException {
+        write(output, strings, binding.getMemberName());
+        output.writeInt(binding.getParameterClasses().length);
+        for (String parameterClass : binding.getParameterClasses()) {
+            write(output, strings, parameterClass);
+        }
+        write(output, strings, binding.getType());
+        write(output, strings, binding.getName());
+        output.writeBoolean(binding.isSingleton());
+    }
+
+    private static void write(ObjectOutputStream output,
+                              Map<String, Integer> strings,
+                              String string) throws IOException {
+        output.writeInt(string == null ? NULL : strings.get(string));
+    }
+
+    private static BindingMetadata readBinding(ObjectInputStream input,
+                                               List<String> strings) throws IOException {
+        final String memberName = readNullableString(input, strings);
+        final List<String> parameterClasses = Lists.newArrayList();
+        for (int i = checkCount(input.readInt()); i > 0; i--) {
+            parameterClasses.add(readString(input, strings));
+        }
+        final String type = readString(input, strings);
+        final String name = readNullableString(input, strings);
+        return new BindingMetadata(memberName,
+                                   parameterClasses.toArray(new String[parameterClasses.size()]),
+                                   type,
+                                   name,
+                                   input.readBoolean());
+    }
+
+    private static String readString(ObjectInputStream input,
+                                     List<String> strings) throws IOException {
+        final String string = readNullableString(input, strings);
+        if (string == null) {
+            throw new InvalidObjectException("Missing string");
+        }
+        return string;
+    }
+
+    private static String readNullableString(ObjectInputStream input,
+                                             List<String> strings) throws IOException {
+        final int index = input.readInt();
+        if (index == NULL) {
+            return null;
+        }
+        if (index < 0 || index >= strings.size()) {
+            throw new InvalidObjectException("Invalid string index: " + index);
+        }
+        return strings.get(index);
+    }
+
+    private static int checkCount(int count) throws InvalidObjectException {
+        if (count < 0) {
+            throw new InvalidObjectException("Invalid count: " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,13 @@
+package com.codahale.og;
+
+import java.lang.annotation.*;
+
+/**
+ * An annotation indicating the constructor Og should use to build instances of a concrete class
+ * which has no {@link Provides}-annotated method. A class may have at most one such constructor.
+ */
+@Documented
+@Target(ElementType.CONSTRUCTOR)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Inject {
+}
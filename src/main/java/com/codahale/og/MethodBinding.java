@@ -0,0 +1,36 @@
+package com.codahale.og;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+class MethodBinding extends Binding {
+    private final Method method;
+    private final Object provider;
+
+    MethodBinding(Method method,
+                  Object provider,
+                  boolean singleton,
+                  BindingMetadata metadata) {
+        super(singleton, metadata);
+        this.method = method;
+        this.provider = provider;
+    }
+
+    @Override
+    Type[] getGenericParameterTypes() {
+        return method.getGenericParameterTypes();
+    }
+
+    @Override
+    Annotation[][] getParameterAnnotations() {
+        return method.getParameterAnnotations();
+    }
+
+    @Override
+    Object newInstance(Object[] parameters) throws InvocationTargetException,
+            IllegalAccessException {
+        return method.invoke(provider, parameters);
+    }
+}
@@ -1,21 +1,47 @@
 package com.codahale.og;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.google.common.reflect.TypeToken;
 
-import java.lang.annotation.Annotation;
+import java.io.*;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * An object graph. <p> Given a set of singletons and modules (which provide instances given
- * dependencies), constructs and memoizes instances of various types. </p>
+ * dependencies), constructs and memoizes instances of various types. Concrete classes with an
+ * {@link Inject}-annotated constructor are bound automatically the first time they're requested.
+ * </p>
  */
 public class ObjectGraph {
+    // callers usually pass the same Type objects every time, so those are mapped straight to
+    // their keys; callers which don't can't grow the maps past this before they're cleared
+    private static final int MAX_CACHED_KEYS = 1024;
+
     private final Map<BindingKey, Object> singletons;
     private final Map<BindingKey, Binding> entryPoints;
+    private final Map<Class<?>, Optional<Binding>> constructorBindings;
+    private final Set<BindingKey> unbounded;
+    private final Map<Type, BindingKey> unnamedKeys;
+    private final Map<Type, Map<String, BindingKey>> namedKeys;
+
+    // null until loadMetadata is called, so graphs which don't use metadata don't pay for it
+    private GraphMetadata metadata;
+    private GraphMetadata savedMetadata;
+    private Map<ClassLoader, TypeNames.Decoder> decoders;
 
     /**
      * Creates a new object graph.
@@ -23,6 +49,10 @@ public class ObjectGraph {
     public ObjectGraph() {
         this.singletons = Maps.newHashMap();
         this.entryPoints = Maps.newHashMap();
+        this.constructorBindings = Maps.newHashMap();
+        this.unbounded = Sets.newHashSet();
+        this.unnamedKeys = Maps.newIdentityHashMap();
+        this.namedKeys = Maps.newIdentityHashMap();
         addSingleton(this);
     }
 
@@ -43,7 +73,7 @@ public class ObjectGraph {
      * @see Named
      */
     public void addSingleton(Object singleton, String name) {
-        singletons.put(new BindingKey(TypeToken.of(singleton.getClass()), name), singleton);
+        singletons.put(BindingKey.of(singleton.getClass(), name), singleton);
     }
 
     /**
@@ -53,28 +83,149 @@ public class ObjectGraph {
      * @see Provides
      */
     public void addModule(Object module) {
-        for (Method method : module.getClass().getDeclaredMethods()) {
+        // new bindings may satisfy previously unbounded keys
+        unbounded.clear();
+
+        final Class<?> klass = module.getClass();
+        String fingerprint = null;
+        if (metadata != null) {
+            fingerprint = ClassFingerprint.of(klass);
+            final List<BindingMetadata> saved = savedMetadata.getModule(klass, fingerprint);
+            if (saved != null) {
+                final Map<BindingKey, Binding> bindings = resolveModule(module, saved);
+                if (bindings != null) {
+                    entryPoints.putAll(bindings);
+                    metadata.putModule(klass, fingerprint, saved);
+                    return;
+                }
+            }
+        }
+
+        boolean saveable = fingerprint != null;
+        final List<BindingMetadata> bindings = Lists.newArrayList();
+        for (Method method : klass.getDeclaredMethods()) {
             final Provides provides = method.getAnnotation(Provides.class);
-            final Named named = method.getAnnotation(Named.class);
-            final Singleton singleton = method.getAnnotation(Singleton.class);
             if (provides != null) {
+                final Named named = method.getAnnotation(Named.class);
+                final Singleton singleton = method.getAnnotation(Singleton.class);
                 method.setAccessible(true);
-                entryPoints.put(new BindingKey(TypeToken.of(mapType(method.getGenericReturnType())),
-                                               named == null ? null : named.value()),
-                                new Binding(method, module, singleton != null));
+                final BindingKey key = BindingKey.of(method.getGenericReturnType(),
+                                                     named == null ? null : named.value());
+                BindingMetadata binding = null;
+                if (saveable) {
+                    binding = BindingMetadata.of(method.getName(),
+                                                 method.getParameterTypes(),
+                                                 key,
+                                                 singleton != null);
+                    saveable = binding != null;
+                    bindings.add(binding);
+                }
+                entryPoints.put(key, new MethodBinding(method, module, singleton != null, binding));
             }
         }
+
+        if (saveable) {
+            metadata.putModule(klass, fingerprint, bindings);
+        }
+    }
+
+    /**
+     * Loads binding metadata previously written by {@link #saveMetadata(File)}, allowing
+     * subsequently added modules and injectable classes to be bound without being analyzed. The
+     * metadata for a module or class whose class file has changed since it was saved is ignored.
+     * <p> Whether or not any metadata was loaded, the graph starts recording the metadata of the
+     * modules and classes bound from then on, so call this before adding any modules. </p>
+     *
+     * @param file the file the metadata was saved to
+     * @return {@code true} if the metadata was loaded, {@code false} if it was missing or invalid
+     * @throws IOException if the file could not be read
+     */
+    public boolean loadMetadata(File file) throws IOException {
+        if (metadata == null) {
+            this.metadata = new GraphMetadata();
+            this.savedMetadata = new GraphMetadata();
+            this.decoders = Maps.newHashMap();
+        }
+
+        if (!file.exists()) {
+            return false;
+        }
+
+        final InputStream input = new FileInputStream(file);
+        try {
+            final ObjectInputStream objects =
+                    new MetadataInputStream(new BufferedInputStream(input));
+            this.savedMetadata = (GraphMetadata) objects.readObject();
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (ClassCastException e) {
+            return false;
+        } catch (ObjectStreamException e) {
+            return false;
+        } catch (EOFException e) {
+            return false;
+        } catch (UTFDataFormatException e) {
+            return false;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Saves the binding metadata of all modules and injectable classes bound since
+     * {@link #loadMetadata(File)} was called, along with the order in which singletons were
+     * constructed.
+     *
+     * @param file the file to save the metadata to
+     * @throws IOException if the file could not be written
+     * @throws IllegalStateException if {@link #loadMetadata(File)} hasn't been called
+     */
+    public void saveMetadata(File file) throws IOException {
+        if (metadata == null) {
+            throw new IllegalStateException("No metadata has been recorded");
+        }
+
+        final File temp = new File(file.getPath() + ".tmp");
+        final OutputStream output = new FileOutputStream(temp);
+        try {
+            final ObjectOutputStream objects =
+                    new ObjectOutputStream(new BufferedOutputStream(output));
+            objects.writeObject(metadata);
+            objects.flush();
+        } finally {
+            output.close();
+        }
+        Files.move(temp, file);
     }
 
     /**
      * Iterates through all provider methods of all modules and preloads all providable types as
-     * singletons.
+     * singletons. If metadata was loaded, singletons are constructed in the order they were
+     * previously.
      */
     public void preload() {
+        if (savedMetadata != null) {
+            // only bindings resolved from the saved metadata share its objects
+            final Map<BindingMetadata, BindingKey> keys = Maps.newIdentityHashMap();
+            for (Map.Entry<BindingKey, Binding> entry : entryPoints.entrySet()) {
+                if (entry.getValue().getMetadata() != null) {
+                    keys.put(entry.getValue().getMetadata(), entry.getKey());
+                }
+            }
+
+            for (BindingMetadata binding : savedMetadata.getSingletonOrder()) {
+                final BindingKey key = keys.get(binding);
+                if (key != null && binding.isSingleton()) {
+                    get(key, key.getType().getType());
+                }
+            }
+        }
+
         for (Map.Entry<BindingKey, Binding> entry : entryPoints.entrySet()) {
             if (entry.getValue().isSingleton()) {
                 final BindingKey key = entry.getKey();
-                get(key.getType(), key.getName());
+                get(key, key.getType().getType());
             }
         }
     }
@@ -91,40 +242,7 @@ public class ObjectGraph {
      */
     @SuppressWarnings("unchecked")
     public <T> T get(TypeToken<T> token, String name) throws DependencyException {
-        try {
-            final BindingKey key = new BindingKey(TypeToken.of(mapType(token.getType())), name);
-
-            // check for singletons
-            final Object singleton = singletons.get(key);
-            if (singleton != null) {
-                return (T) singleton;
-            }
-
-            // check for exact bindings
-            final Binding binding = entryPoints.get(key);
-            if (binding != null) {
-                final Object o = get(binding);
-                if (binding.isSingleton()) {
-                    singletons.put(key, o);
-                }
-                return (T) o;
-            }
-
-            // check for bounded bindings
-            for (Map.Entry<BindingKey, Binding> entry : entryPoints.entrySet()) {
-                if (key.isAssignableFrom(entry.getKey())) {
-                    final Object o = get(entry.getValue());
-                    if (entry.getValue().isSingleton()) {
-                        singletons.put(key, o);
-                    }
-                    return (T) o;
-                }
-            }
-        } catch (Exception e) {
-            throw new UnprovidableTypeException(token, name, e);
-        }
-
-        throw new UnprovidableTypeException(token, name);
+        return (T) get(getKey(token.getType(), name), token.getType());
     }
 
     /**
@@ -161,66 +279,240 @@ public class ObjectGraph {
      * @throws DependencyException if an instance of the type cannot be provided
      * @see Named
      */
+    @SuppressWarnings("unchecked")
     public <T> T get(Class<T> klass, String name) throws DependencyException {
-        return get(TypeToken.of(klass), name);
+        return (T) get(getKey(klass, name), klass);
+    }
+
+    private BindingKey getKey(Type type, String name) {
+        if (name == null) {
+            BindingKey key = unnamedKeys.get(type);
+            if (key == null) {
+                if (unnamedKeys.size() >= MAX_CACHED_KEYS) {
+                    unnamedKeys.clear();
+                }
+                key = BindingKey.of(type, null);
+                unnamedKeys.put(type, key);
+            }
+            return key;
+        }
+
+        Map<String, BindingKey> keys = namedKeys.get(type);
+        if (keys == null) {
+            if (namedKeys.size() >= MAX_CACHED_KEYS) {
+                namedKeys.clear();
+            }
+            keys = Maps.newHashMap();
+            namedKeys.put(type, keys);
+        }
+        BindingKey key = keys.get(name);
+        if (key == null) {
+            if (keys.size() >= MAX_CACHED_KEYS) {
+                keys.clear();
+            }
+            key = BindingKey.of(type, name);
+            keys.put(name, key);
+        }
+        return key;
     }
 
-    private Object get(Binding binding) throws InvocationTargetException, IllegalAccessException {
-        final Type[] parameterTypes = binding.getMethod().getGenericParameterTypes();
-        final Annotation[][] annotations = binding.getMethod().getParameterAnnotations();
-        final Object[] params = new Object[parameterTypes.length];
-        for (int i = 0; i < parameterTypes.length; i++) {
-            final Named named = findNames(annotations[i]);
-            params[i] = ObjectGraph.this.get(TypeToken.of(parameterTypes[i]),
-                                             named == null ? null : named.value());
+    private Object get(BindingKey key, Type type) throws DependencyException {
+        try {
+            // check for singletons
+            final Object singleton = singletons.get(key);
+            if (singleton != null) {
+                return singleton;
+            }
+
+            // check for exact bindings
+            final Binding binding = entryPoints.get(key);
+            if (binding != null) {
+                return get(key, binding);
+            }
+
+            // check for bounded bindings, unless we already know there are none
+            if (!unbounded.contains(key)) {
+                for (Map.Entry<BindingKey, Binding> entry : entryPoints.entrySet()) {
+                    if (key.isAssignableFrom(entry.getKey())) {
+                        return get(key, entry.getValue());
+                    }
+                }
+                unbounded.add(key);
+            }
+
+            // check for just-in-time constructor bindings
+            final Binding constructorBinding = getConstructorBinding(key);
+            if (constructorBinding != null) {
+                return get(key, constructorBinding);
+            }
+        } catch (Exception e) {
+            throw new UnprovidableTypeException(TypeToken.of(type), key.getName(), e);
         }
-        return binding.getMethod().invoke(binding.getProvider(), params);
+
+        throw new UnprovidableTypeException(TypeToken.of(type), key.getName());
     }
 
-    private Named findNames(Annotation[] annotations) {
-        for (Annotation annotation : annotations) {
-            if (annotation instanceof Named) {
-                return (Named) annotation;
+    private Object get(BindingKey key, Binding binding) throws InvocationTargetException,
+            IllegalAccessException, InstantiationException {
+        final BindingKey[] parameterKeys = binding.getParameterKeys();
+        final Object[] params = new Object[parameterKeys.length];
+        for (int i = 0; i < parameterKeys.length; i++) {
+            try {
+                params[i] = get(parameterKeys[i], parameterKeys[i].getType().getType());
+            } catch (UnprovidableTypeException e) {
+                // report the parameter's declared type rather than its (possibly boxed) key type
+                throw new UnprovidableTypeException(
+                        TypeToken.of(binding.getGenericParameterTypes()[i]),
+                        parameterKeys[i].getName(),
+                        e.getCause());
             }
         }
-        return null;
+        final Object o = binding.newInstance(params);
+        if (binding.isSingleton()) {
+            singletons.put(key, o);
+            if (binding.getMetadata() != null) {
+                metadata.addSingleton(binding.getMetadata());
+            }
+        }
+        return o;
     }
 
-    // map primitive types to their boxed types
-    private Type mapType(Type type) {
-        if (byte.class.equals(type)) {
-            return Byte.class;
+    private Binding getConstructorBinding(BindingKey key) {
+        if (key.getName() != null || !(key.getType().getType() instanceof Class)) {
+            return null;
         }
 
-        if (short.class.equals(type)) {
-            return Short.class;
+        final Class<?> klass = (Class<?>) key.getType().getType();
+        Optional<Binding> binding = constructorBindings.get(klass);
+        if (binding == null) {
+            binding = Optional.fromNullable(buildConstructorBinding(klass));
+            constructorBindings.put(klass, binding);
         }
+        return binding.orNull();
+    }
 
-        if (int.class.equals(type)) {
-            return Integer.class;
+    private Binding buildConstructorBinding(Class<?> klass) {
+        if (klass.isInterface() || klass.isArray() || klass.isPrimitive() ||
+                Modifier.isAbstract(klass.getModifiers()) ||
+                klass.isAnonymousClass() || klass.isLocalClass() ||
+                (klass.isMemberClass() && !Modifier.isStatic(klass.getModifiers()))) {
+            return null;
         }
 
-        if (long.class.equals(type)) {
-            return Long.class;
+        String fingerprint = null;
+        if (metadata != null) {
+            fingerprint = ClassFingerprint.of(klass);
+            final BindingMetadata saved = savedMetadata.getConstructor(klass, fingerprint);
+            if (saved != null) {
+                for (Constructor<?> constructor : klass.getDeclaredConstructors()) {
+                    if (saved.hasParameterClasses(constructor.getParameterTypes())) {
+                        constructor.setAccessible(true);
+                        metadata.putConstructor(klass, fingerprint, saved);
+                        return new ConstructorBinding(constructor, saved.isSingleton(), saved);
+                    }
+                }
+                // the saved metadata is stale, so analyze the class from scratch
+            }
         }
 
-        if (float.class.equals(type)) {
-            return Float.class;
+        Constructor<?> injectable = null;
+        for (Constructor<?> constructor : klass.getDeclaredConstructors()) {
+            if (constructor.isAnnotationPresent(Inject.class)) {
+                if (injectable != null) {
+                    // ambiguous, so don't guess
+                    return null;
+                }
+                injectable = constructor;
+            }
         }
 
-        if (double.class.equals(type)) {
-            return Double.class;
+        if (injectable == null) {
+            return null;
         }
 
-        if (boolean.class.equals(type)) {
-            return Boolean.class;
+        injectable.setAccessible(true);
+        final boolean singleton = klass.isAnnotationPresent(Singleton.class);
+        BindingMetadata binding = null;
+        if (fingerprint != null) {
+            binding = BindingMetadata.of(null,
+                                         injectable.getParameterTypes(),
+                                         BindingKey.of(klass, null),
+                                         singleton);
+            if (binding != null) {
+                metadata.putConstructor(klass, fingerprint, binding);
+            }
         }
+        return new ConstructorBinding(injectable, singleton, binding);
+    }
 
-        if (char.class.equals(type)) {
-            return Character.class;
+    // resolves every saved binding of the module, or returns null if any of them are stale
+    private Map<BindingKey, Binding> resolveModule(Object module, List<BindingMetadata> saved) {
+        final Class<?> klass = module.getClass();
+        final ListMultimap<String, Method> methods = ArrayListMultimap.create();
+        for (Method method : klass.getDeclaredMethods()) {
+            methods.put(method.getName(), method);
         }
 
-        return type;
+        final TypeNames.Decoder decoder = getDecoder(klass.getClassLoader());
+        final Map<BindingKey, Binding> bindings = Maps.newLinkedHashMap();
+        try {
+            for (BindingMetadata binding : saved) {
+                final Method method = findMethod(methods.get(binding.getMemberName()), binding);
+                if (method == null) {
+                    return null;
+                }
+                method.setAccessible(true);
+                bindings.put(binding.getKey(method.getReturnType(), decoder),
+                             new MethodBinding(method, module, binding.isSingleton(), binding));
+            }
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return bindings;
+    }
+
+    private Method findMethod(List<Method> methods, BindingMetadata binding) {
+        for (Method method : methods) {
+            if (binding.hasParameterClasses(method.getParameterTypes())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private TypeNames.Decoder getDecoder(ClassLoader loader) {
+        TypeNames.Decoder decoder = decoders.get(loader);
+        if (decoder == null) {
+            decoder = new TypeNames.Decoder(loader);
+            decoders.put(loader, decoder);
+        }
+        return decoder;
     }
-}
 
+    // Only the metadata class itself can be read, so a planted file can't instantiate anything
+    // else. Types are stored as strings and resolved with each module's own class loader.
+    private static class MetadataInputStream extends ObjectInputStream {
+        private static final ImmutableSet<String> ALLOWED =
+                ImmutableSet.of(GraphMetadata.class.getName());
+
+        MetadataInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            if (!ALLOWED.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not allowed in metadata");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxies are not allowed in metadata");
+        }
+    }
+}
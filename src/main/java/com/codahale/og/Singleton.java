@@ -3,11 +3,11 @@ package com.codahale.og;
 import java.lang.annotation.*;
 
 /**
- * An annotation indicating the result of a {@link Provides}-annotated method should be considered
- * a singleton.
+ * An annotation indicating the result of a {@link Provides}-annotated method, or instances of a
+ * class with an {@link Inject}-annotated constructor, should be considered a singleton.
  */
 @Documented
-@Target(ElementType.METHOD)
+@Target({ ElementType.METHOD, ElementType.TYPE })
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Singleton {
 }
@@ -0,0 +1,318 @@
+package com.codahale.og;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes types as strings and back, resolving classes with a given class loader. Type variables
+ * and parameterized owner types aren't supported.
+ */
+class TypeNames {
+    private static final ImmutableMap<String, Class<?>> PRIMITIVES =
+            ImmutableMap.<String, Class<?>>builder()
+                        .put("byte", byte.class)
+                        .put("short", short.class)
+                        .put("int", int.class)
+                        .put("long", long.class)
+                        .put("float", float.class)
+                        .put("double", double.class)
+                        .put("boolean", boolean.class)
+                        .put("char", char.class)
+                        .put("void", void.class)
+                        .build();
+
+    private TypeNames() { /* static methods only */ }
+
+    static String encode(Type type) {
+        if (type instanceof Class) {
+            final Class<?> klass = (Class<?>) type;
+            return klass.isArray() ? encode(klass.getComponentType()) + "[]" : klass.getName();
+        }
+
+        if (type instanceof ParameterizedType) {
+            final ParameterizedType parameterized = (ParameterizedType) type;
+            if (parameterized.getOwnerType() instanceof ParameterizedType) {
+                throw new IllegalArgumentException("Unsupported type: " + type);
+            }
+            final StringBuilder builder = new StringBuilder(encode(parameterized.getRawType()));
+            builder.append('<');
+            final Type[] arguments = parameterized.getActualTypeArguments();
+            for (int i = 0; i < arguments.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(encode(arguments[i]));
+            }
+            return builder.append('>').toString();
+        }
+
+        if (type instanceof GenericArrayType) {
+            return encode(((GenericArrayType) type).getGenericComponentType()) + "[]";
+        }
+
+        if (type instanceof WildcardType) {
+            final WildcardType wildcard = (WildcardType) type;
+            if (wildcard.getLowerBounds().length == 1) {
+                return "?-" + encode(wildcard.getLowerBounds()[0]);
+            }
+            if (wildcard.getUpperBounds().length == 1 &&
+                    !Object.class.equals(wildcard.getUpperBounds()[0])) {
+                return "?+" + encode(wildcard.getUpperBounds()[0]);
+            }
+            return "?";
+        }
+
+        throw new IllegalArgumentException("Unsupported type: " + type);
+    }
+
+    // Decodes types with a class loader. The same class names turn up over and over again in a
+    // graph's metadata, so each one is only loaded once.
+    static class Decoder {
+        private final ClassLoader loader;
+        private final Map<String, Class<?>> classes;
+
+        Decoder(ClassLoader loader) {
+            this.loader = loader;
+            this.classes = Maps.newHashMap();
+        }
+
+        Type decode(String name) throws ClassNotFoundException {
+            final Parser parser = new Parser(name, this);
+            final Type type = parser.parse();
+            if (!parser.isDone()) {
+                throw new IllegalArgumentException("Malformed type: " + name);
+            }
+            return type;
+        }
+
+        private Class<?> load(String name) throws ClassNotFoundException {
+            Class<?> klass = classes.get(name);
+            if (klass == null) {
+                klass = PRIMITIVES.get(name);
+                if (klass == null) {
+                    klass = Class.forName(name, false, loader);
+                }
+                classes.put(name, klass);
+            }
+            return klass;
+        }
+    }
+
+    private static class Parser {
+        private final String input;
+        private final Decoder decoder;
+        private int position;
+
+        Parser(String input, Decoder decoder) {
+            this.input = input;
+            this.decoder = decoder;
+        }
+
+        boolean isDone() {
+            return position == input.length();
+        }
+
+        Type parse() throws ClassNotFoundException {
+            Type type;
+            if (consume('?')) {
+                if (consume('+')) {
+                    type = new WildcardTypeImpl(new Type[]{ parse() }, new Type[0]);
+                } else if (consume('-')) {
+                    type = new WildcardTypeImpl(new Type[]{ Object.class }, new Type[]{ parse() });
+                } else {
+                    type = new WildcardTypeImpl(new Type[]{ Object.class }, new Type[0]);
+                }
+                return type;
+            }
+
+            final int start = position;
+            while (position < input.length() && "<>,[".indexOf(input.charAt(position)) < 0) {
+                position++;
+            }
+            final String className = input.substring(start, position);
+            if (className.isEmpty()) {
+                throw new IllegalArgumentException("Malformed type: " + input);
+            }
+            final Class<?> raw = decoder.load(className);
+            type = raw;
+
+            if (consume('<')) {
+                final List<Type> arguments = Lists.newArrayList();
+                do {
+                    arguments.add(parse());
+                } while (consume(','));
+                expect('>');
+                type = new ParameterizedTypeImpl(raw.getDeclaringClass(),
+                                                 raw,
+                                                 arguments.toArray(new Type[arguments.size()]));
+            }
+
+            while (consume('[')) {
+                expect(']');
+                if (type instanceof Class) {
+                    type = Array.newInstance((Class<?>) type, 0).getClass();
+                } else {
+                    type = new GenericArrayTypeImpl(type);
+                }
+            }
+            return type;
+        }
+
+        private boolean consume(char c) {
+            if (position < input.length() && input.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("Malformed type: " + input);
+            }
+        }
+    }
+
+    // equals and hashCode match the JDK's own implementations, so decoded types are
+    // interchangeable with reflected ones
+
+    private static class ParameterizedTypeImpl implements ParameterizedType {
+        private final Type ownerType;
+        private final Type rawType;
+        private final Type[] actualTypeArguments;
+
+        ParameterizedTypeImpl(Type ownerType, Type rawType, Type[] actualTypeArguments) {
+            this.ownerType = ownerType;
+            this.rawType = rawType;
+            this.actualTypeArguments = actualTypeArguments;
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            return actualTypeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return rawType;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return ownerType;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ParameterizedType)) { return false; }
+            final ParameterizedType that = (ParameterizedType) obj;
+            return (ownerType == null ? that.getOwnerType() == null :
+                    ownerType.equals(that.getOwnerType())) &&
+                    rawType.equals(that.getRawType()) &&
+                    Arrays.equals(actualTypeArguments, that.getActualTypeArguments());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(actualTypeArguments) ^
+                    (ownerType == null ? 0 : ownerType.hashCode()) ^
+                    rawType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(((Class<?>) rawType).getName());
+            builder.append('<');
+            for (int i = 0; i < actualTypeArguments.length; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(typeName(actualTypeArguments[i]));
+            }
+            return builder.append('>').toString();
+        }
+    }
+
+    private static class GenericArrayTypeImpl implements GenericArrayType {
+        private final Type componentType;
+
+        GenericArrayTypeImpl(Type componentType) {
+            this.componentType = componentType;
+        }
+
+        @Override
+        public Type getGenericComponentType() {
+            return componentType;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof GenericArrayType &&
+                    componentType.equals(((GenericArrayType) obj).getGenericComponentType());
+        }
+
+        @Override
+        public int hashCode() {
+            return componentType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return typeName(componentType) + "[]";
+        }
+    }
+
+    private static class WildcardTypeImpl implements WildcardType {
+        private final Type[] upperBounds;
+        private final Type[] lowerBounds;
+
+        WildcardTypeImpl(Type[] upperBounds, Type[] lowerBounds) {
+            this.upperBounds = upperBounds;
+            this.lowerBounds = lowerBounds;
+        }
+
+        @Override
+        public Type[] getUpperBounds() {
+            return upperBounds.clone();
+        }
+
+        @Override
+        public Type[] getLowerBounds() {
+            return lowerBounds.clone();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof WildcardType)) { return false; }
+            final WildcardType that = (WildcardType) obj;
+            return Arrays.equals(lowerBounds, that.getLowerBounds()) &&
+                    Arrays.equals(upperBounds, that.getUpperBounds());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(lowerBounds) ^ Arrays.hashCode(upperBounds);
+        }
+
+        @Override
+        public String toString() {
+            if (lowerBounds.length == 1) {
+                return "? super " + typeName(lowerBounds[0]);
+            }
+            if (!Object.class.equals(upperBounds[0])) {
+                return "? extends " + typeName(upperBounds[0]);
+            }
+            return "?";
+        }
+    }
+
+    private static String typeName(Type type) {
+        return type instanceof Class ? ((Class<?>) type).getName() : type.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.codahale.og;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class BindingKeyTest {
+    public static class PluginThing {
+    }
+
+    public static class PluginModule {
+        @Provides
+        public PluginThing getThing() {
+            return new PluginThing();
+        }
+    }
+
+    // loads the plugin classes itself and everything else from its parent
+    private static class PluginClassLoader extends ClassLoader {
+        PluginClassLoader() {
+            super(BindingKeyTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException {
+            if (!name.startsWith(BindingKeyTest.class.getName() + "$Plugin")) {
+                return super.loadClass(name, resolve);
+            }
+
+            Class<?> klass = findLoadedClass(name);
+            if (klass == null) {
+                try {
+                    final InputStream input =
+                            getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                    try {
+                        final byte[] bytes = ByteStreams.toByteArray(input);
+                        klass = defineClass(name, bytes, 0, bytes.length);
+                    } finally {
+                        input.close();
+                    }
+                } catch (Exception e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            if (resolve) {
+                resolveClass(klass);
+            }
+            return klass;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private List<String> strings;
+
+    @Test
+    public void returnsTheSameKeyForEqualClasses() throws Exception {
+        assertThat(BindingKey.of(String.class, null))
+                .isSameAs(BindingKey.of(String.class, null));
+    }
+
+    @Test
+    public void returnsTheSameKeyForEqualGenericTypes() throws Exception {
+        final TypeToken<List<String>> token = new TypeToken<List<String>>() {};
+
+        assertThat(BindingKey.of(token.getType(), null))
+                .isSameAs(BindingKey.of(getClass().getDeclaredField("strings").getGenericType(),
+                                        null));
+    }
+
+    @Test
+    public void returnsTheSameKeyForEqualNames() throws Exception {
+        assertThat(BindingKey.of(String.class, "one"))
+                .isSameAs(BindingKey.of(String.class, "one"));
+
+        assertThat(BindingKey.of(String.class, "one"))
+                .isNotSameAs(BindingKey.of(String.class, "two"));
+    }
+
+    @Test
+    public void returnsTheSameKeyForPrimitiveAndBoxedTypes() throws Exception {
+        assertThat(BindingKey.of(int.class, null))
+                .isSameAs(BindingKey.of(Integer.class, null));
+
+        assertThat(BindingKey.of(int.class, "one"))
+                .isSameAs(BindingKey.of(Integer.class, "one"));
+    }
+
+    @Test
+    public void doesNotKeepPluginClassLoadersAlive() throws Exception {
+        final WeakReference<ClassLoader> loader = loadPlugin();
+
+        for (int i = 0; i < 100 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertThat(loader.get())
+                .isNull();
+    }
+
+    // a separate method, so nothing on the test's own stack refers to the plugin
+    private static WeakReference<ClassLoader> loadPlugin() throws Exception {
+        final ClassLoader loader = new PluginClassLoader();
+        final Class<?> thing = loader.loadClass(PluginThing.class.getName());
+        final ObjectGraph graph = new ObjectGraph();
+        graph.addModule(loader.loadClass(PluginModule.class.getName()).newInstance());
+
+        assertThat(graph.get(thing).getClass())
+                .isEqualTo(thing);
+
+        assertThat(thing)
+                .isNotEqualTo(PluginThing.class);
+
+        return new WeakReference<ClassLoader>(loader);
+    }
+}
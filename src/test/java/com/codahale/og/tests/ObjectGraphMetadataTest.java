@@ -0,0 +1,337 @@
+package com.codahale.og.tests;
+
+import com.codahale.og.*;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.primitives.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+// Saved metadata is patched to bind things in ways analysis never would, so the tests can tell
+// whether a graph used it or not.
+public class ObjectGraphMetadataTest {
+    public static class NamedModule {
+        @Provides
+        @Named("thingy")
+        public String getString() {
+            return "yay";
+        }
+
+        @Provides
+        @Named("other")
+        public String getOther(@Named("thingy") String s) {
+            return "oh " + s;
+        }
+    }
+
+    private static class OrderModule {
+        private final List<String> constructed = Lists.newArrayList();
+
+        @Provides
+        @Singleton
+        @Named("a")
+        public String getA() {
+            return construct("a");
+        }
+
+        @Provides
+        @Singleton
+        @Named("b")
+        public String getB() {
+            return construct("b");
+        }
+
+        @Provides
+        @Singleton
+        @Named("c")
+        public String getC() {
+            return construct("c");
+        }
+
+        @Provides
+        @Singleton
+        @Named("d")
+        public String getD() {
+            return construct("d");
+        }
+
+        private String construct(String name) {
+            constructed.add(name);
+            return name;
+        }
+    }
+
+    public static class Thing {
+        private final String source;
+
+        @Inject
+        public Thing(Long l) {
+            this.source = "long";
+        }
+
+        public Thing(Byte b) {
+            this.source = "byte";
+        }
+    }
+
+    // loads the plugin module from its own copy of the class file
+    private static class PluginClassLoader extends URLClassLoader {
+        PluginClassLoader(File root) throws Exception {
+            super(new URL[]{ root.toURI().toURL() },
+                  ObjectGraphMetadataTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException {
+            if (!name.equals(NamedModule.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+
+            Class<?> klass = findLoadedClass(name);
+            if (klass == null) {
+                klass = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(klass);
+            }
+            return klass;
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectGraph graph = new ObjectGraph();
+
+    @Test
+    public void bindsModulesUsingSavedMetadata() throws Exception {
+        final File file = save(new NamedModule());
+        replace(file, "thingy", "bogus!");
+
+        assertThat(graph.loadMetadata(file))
+                .isTrue();
+
+        graph.addModule(new NamedModule());
+
+        assertThat(graph.get(String.class, "bogus!"))
+                .isEqualTo("yay");
+
+        assertUnprovidable("thingy");
+    }
+
+    @Test
+    public void ignoresMetadataForPartiallyStaleModules() throws Exception {
+        final File file = save(new NamedModule());
+        replace(file, "thingy", "bogus!");
+        replace(file, "getOther", "getGone!");
+
+        assertThat(graph.loadMetadata(file))
+                .isTrue();
+
+        graph.addModule(new NamedModule());
+
+        assertThat(graph.get(String.class, "other"))
+                .isEqualTo("oh yay");
+
+        assertUnprovidable("bogus!");
+    }
+
+    @Test
+    public void ignoresMetadataForChangedModules() throws Exception {
+        final File root = folder.newFolder("plugin");
+        final String path = NamedModule.class.getName().replace('.', '/') + ".class";
+        final File classFile = new File(root, path);
+        Files.createParentDirs(classFile);
+        Files.copy(new File(NamedModule.class.getResource('/' + path).toURI()), classFile);
+        final Class<?> module = new PluginClassLoader(root).loadClass(NamedModule.class.getName());
+
+        final File file = save(module.newInstance());
+        replace(file, "thingy", "bogus!");
+
+        final ObjectGraph unchanged = new ObjectGraph();
+        unchanged.loadMetadata(file);
+        unchanged.addModule(module.newInstance());
+
+        assertThat(unchanged.get(String.class, "bogus!"))
+                .isEqualTo("yay");
+
+        assertThat(classFile.setLastModified(classFile.lastModified() + 10000))
+                .isTrue();
+
+        assertThat(graph.loadMetadata(file))
+                .isTrue();
+
+        graph.addModule(module.newInstance());
+
+        assertThat(graph.get(String.class, "thingy"))
+                .isEqualTo("yay");
+
+        assertUnprovidable("bogus!");
+    }
+
+    @Test
+    public void bindsInjectableClassesUsingSavedMetadata() throws Exception {
+        final File file = saveThing();
+        replace(file, "java.lang.Long", "java.lang.Byte");
+
+        assertThat(graph.loadMetadata(file))
+                .isTrue();
+
+        graph.addSingleton((byte) 2);
+
+        assertThat(graph.get(Thing.class).source)
+                .isEqualTo("byte");
+    }
+
+    @Test
+    public void ignoresStaleMetadataForInjectableClasses() throws Exception {
+        final File file = saveThing();
+        replace(file, "java.lang.Long", "java.lang.Gone");
+
+        assertThat(graph.loadMetadata(file))
+                .isTrue();
+
+        graph.addSingleton(1L);
+
+        assertThat(graph.get(Thing.class).source)
+                .isEqualTo("long");
+    }
+
+    @Test
+    public void replaysTheOrderSingletonsWereConstructedIn() throws Exception {
+        final OrderModule cold = new OrderModule();
+        graph.addModule(cold);
+        graph.preload();
+
+        final List<String> order = Lists.reverse(cold.constructed);
+
+        final ObjectGraph recording = new ObjectGraph();
+        final File file = new File(folder.getRoot(), "og.metadata");
+        recording.loadMetadata(file);
+        recording.addModule(new OrderModule());
+        for (String name : order) {
+            recording.get(String.class, name);
+        }
+        recording.saveMetadata(file);
+
+        final ObjectGraph warm = new ObjectGraph();
+        final OrderModule module = new OrderModule();
+
+        assertThat(warm.loadMetadata(file))
+                .isTrue();
+
+        warm.addModule(module);
+        warm.preload();
+
+        assertThat(module.constructed)
+                .isEqualTo(ImmutableList.copyOf(order));
+    }
+
+    @Test
+    public void ignoresMissingMetadata() throws Exception {
+        assertThat(graph.loadMetadata(new File(folder.getRoot(), "nope")))
+                .isFalse();
+    }
+
+    @Test
+    public void ignoresCorruptMetadata() throws Exception {
+        final File file = folder.newFile("og.metadata");
+        Files.write("not metadata", file, Charsets.UTF_8);
+
+        assertThat(graph.loadMetadata(file))
+                .isFalse();
+    }
+
+    @Test
+    public void ignoresTruncatedMetadata() throws Exception {
+        final File file = save(new NamedModule());
+        final byte[] bytes = Files.toByteArray(file);
+        Files.write(Arrays.copyOf(bytes, bytes.length / 2), file);
+
+        assertThat(graph.loadMetadata(file))
+                .isFalse();
+    }
+
+    @Test
+    public void rejectsMetadataContainingOtherClasses() throws Exception {
+        final File file = folder.newFile("og.metadata");
+        final ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            output.writeObject(new Date());
+        } finally {
+            output.close();
+        }
+
+        assertThat(graph.loadMetadata(file))
+                .isFalse();
+    }
+
+    @Test
+    public void onlySavesMetadataAfterLoadingIt() throws Exception {
+        try {
+            graph.saveMetadata(new File(folder.getRoot(), "og.metadata"));
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("No metadata has been recorded");
+        }
+    }
+
+    private File save(Object module) throws Exception {
+        final File file = new File(folder.getRoot(), "og.metadata");
+        final ObjectGraph recording = new ObjectGraph();
+        recording.loadMetadata(file);
+        recording.addModule(module);
+        recording.saveMetadata(file);
+        return file;
+    }
+
+    private File saveThing() throws Exception {
+        final File file = new File(folder.getRoot(), "og.metadata");
+        final ObjectGraph recording = new ObjectGraph();
+        recording.loadMetadata(file);
+        recording.addSingleton(1L);
+        recording.get(Thing.class);
+        recording.saveMetadata(file);
+        return file;
+    }
+
+    // replaces a string in the saved metadata with another of the same length
+    private static void replace(File file, String from, String to) throws Exception {
+        final byte[] bytes = Files.toByteArray(file);
+        final int index = Bytes.indexOf(bytes, from.getBytes(Charsets.UTF_8));
+
+        assertThat(index)
+                .isNotEqualTo(-1);
+
+        final byte[] replacement = to.getBytes(Charsets.UTF_8);
+        System.arraycopy(replacement, 0, bytes, index, replacement.length);
+        Files.write(bytes, file);
+    }
+
+    private void assertUnprovidable(String name) {
+        try {
+            graph.get(String.class, name);
+            failBecauseExceptionWasNotThrown(DependencyException.class);
+        } catch (DependencyException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Unable to provide a java.lang.String named '" + name + '\'');
+        }
+    }
+}
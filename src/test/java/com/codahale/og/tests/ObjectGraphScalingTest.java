@@ -0,0 +1,542 @@
+package com.codahale.og.tests;
+
+import com.codahale.og.ObjectGraph;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.reflect.TypeToken;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Generates, compiles, and loads synthetic module graphs of increasing size, then measures how
+ * {@link ObjectGraph} scales. <p> This isn't part of the regular build; run {@code mvn test
+ * -Pscaling} to build graphs of up to 100,000 bindings. The {@code og.scaling.*} system properties
+ * control the shape of the graphs and, if set, the limits the results must stay under. Graphs are
+ * {@code og.scaling.depth} layers deep, unless {@code og.scaling.width} is set, in which case each
+ * layer has that many bindings and the depth follows from the size. The results for each size are
+ * written to {@code target/scaling/bindings-<size>.properties}. </p> <p> Besides registering and
+ * getting bindings by their exact types, each size measures getting plain bindings by the
+ * interfaces they implement, which has to scan every binding, and registering the modules in a
+ * new class loader using the metadata a previous graph saved. </p> <p> Heap usage is only
+ * accurate with a collector which reports it precisely after {@link System#gc()}, like the
+ * parallel collector the {@code scaling} profile uses. </p>
+ */
+public class ObjectGraphScalingTest {
+    private static final String PACKAGE = "og.synthetic";
+
+    private static class Config {
+        final List<Integer> sizes = Lists.newArrayList();
+        final int depth = Integer.getInteger("og.scaling.depth", 8);
+        final int width = Integer.getInteger("og.scaling.width", 0);
+        final int fanIn = Integer.getInteger("og.scaling.fanIn", 2);
+        final int bindingsPerModule = Integer.getInteger("og.scaling.bindingsPerModule", 100);
+        final double genericRatio = doubleProperty("og.scaling.genericRatio", 0.5);
+        final double namedRatio = doubleProperty("og.scaling.namedRatio", 0.25);
+        final double singletonRatio = doubleProperty("og.scaling.singletonRatio", 0.5);
+        final int samples = Integer.getInteger("og.scaling.samples", 1000);
+        final int iterations = Integer.getInteger("og.scaling.iterations", 100000);
+        final int boundedSamples = Integer.getInteger("og.scaling.boundedSamples", 100);
+        final int boundedIterations = Integer.getInteger("og.scaling.boundedIterations", 1000);
+        final double maxRegistrationNanos = doubleProperty("og.scaling.maxRegistrationNanos", 0);
+        final double maxFirstGetNanos = doubleProperty("og.scaling.maxFirstGetNanos", 0);
+        final double maxSteadyStateNanos = doubleProperty("og.scaling.maxSteadyStateNanos", 0);
+        final double maxSingletonSteadyStateNanos =
+                doubleProperty("og.scaling.maxSingletonSteadyStateNanos", 0);
+        final double maxBytesPerBinding = doubleProperty("og.scaling.maxBytesPerBinding", 0);
+        final double maxBytesPerSingleton = doubleProperty("og.scaling.maxBytesPerSingleton", 0);
+        final double maxBoundedFirstGetNanos =
+                doubleProperty("og.scaling.maxBoundedFirstGetNanos", 0);
+        final double maxBoundedSteadyStateNanos =
+                doubleProperty("og.scaling.maxBoundedSteadyStateNanos", 0);
+        final double maxWarmRegistrationNanos =
+                doubleProperty("og.scaling.maxWarmRegistrationNanos", 0);
+        final File reportDirectory =
+                new File(System.getProperty("og.scaling.reportDirectory", "target/scaling"));
+
+        Config() {
+            final String sizes = System.getProperty("og.scaling.sizes", "100,1000");
+            for (String size : Splitter.on(',').trimResults().omitEmptyStrings().split(sizes)) {
+                this.sizes.add(Integer.valueOf(size));
+            }
+        }
+
+        private static double doubleProperty(String name, double defaultValue) {
+            final String value = System.getProperty(name);
+            return value == null ? defaultValue : Double.parseDouble(value);
+        }
+    }
+
+    private static class BindingSpec {
+        final int id;
+        final int module;
+        final String type;
+        final String name;
+        final String expression;
+        final boolean singleton;
+        final List<BindingSpec> dependencies;
+
+        BindingSpec(int id, int module, String type, String name, String expression,
+                    boolean singleton, List<BindingSpec> dependencies) {
+            this.id = id;
+            this.module = module;
+            this.type = type;
+            this.name = name;
+            this.expression = expression;
+            this.singleton = singleton;
+            this.dependencies = dependencies;
+        }
+
+        boolean isPlain() {
+            return name == null && !type.startsWith("java.util.Map");
+        }
+    }
+
+    private static class Results {
+        double registrationNanos;
+        double firstGetNanos;
+        double steadyStateNanos;
+        double singletonSteadyStateNanos;
+        double bytesPerBinding;
+        double bytesPerSingleton;
+        double boundedFirstGetNanos;
+        double boundedSteadyStateNanos;
+        double metadataLoadNanos;
+        double warmRegistrationNanos;
+
+        void write(File file, int bindings) throws IOException {
+            final Properties properties = new Properties();
+            properties.setProperty("bindings", Integer.toString(bindings));
+            properties.setProperty("registrationNanos", Double.toString(registrationNanos));
+            properties.setProperty("firstGetNanos", Double.toString(firstGetNanos));
+            properties.setProperty("steadyStateNanos", Double.toString(steadyStateNanos));
+            properties.setProperty("singletonSteadyStateNanos",
+                                   Double.toString(singletonSteadyStateNanos));
+            properties.setProperty("bytesPerBinding", Double.toString(bytesPerBinding));
+            properties.setProperty("bytesPerSingleton", Double.toString(bytesPerSingleton));
+            properties.setProperty("boundedFirstGetNanos", Double.toString(boundedFirstGetNanos));
+            properties.setProperty("boundedSteadyStateNanos",
+                                   Double.toString(boundedSteadyStateNanos));
+            properties.setProperty("metadataLoadNanos", Double.toString(metadataLoadNanos));
+            properties.setProperty("warmRegistrationNanos",
+                                   Double.toString(warmRegistrationNanos));
+
+            final OutputStream output = new FileOutputStream(file);
+            try {
+                properties.store(output, "ObjectGraph scaling results");
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Config config = new Config();
+
+    // a field, not a local, so the graph is reachable exactly until it's cleared
+    private ObjectGraph measured;
+
+    @Test
+    public void scalesWithTheNumberOfBindings() throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeNotNull(compiler);
+
+        config.reportDirectory.mkdirs();
+        for (int size : config.sizes) {
+            final List<BindingSpec> specs = generate(size);
+            final File classes = compile(compiler, specs);
+            final Results results = measure(classes, specs);
+            results.write(new File(config.reportDirectory, "bindings-" + size + ".properties"),
+                          specs.size());
+
+            checkLimit(results.registrationNanos, config.maxRegistrationNanos);
+            checkLimit(results.firstGetNanos, config.maxFirstGetNanos);
+            checkLimit(results.steadyStateNanos, config.maxSteadyStateNanos);
+            checkLimit(results.singletonSteadyStateNanos, config.maxSingletonSteadyStateNanos);
+            checkLimit(results.bytesPerBinding, config.maxBytesPerBinding);
+            checkLimit(results.bytesPerSingleton, config.maxBytesPerSingleton);
+            checkLimit(results.boundedFirstGetNanos, config.maxBoundedFirstGetNanos);
+            checkLimit(results.boundedSteadyStateNanos, config.maxBoundedSteadyStateNanos);
+            checkLimit(results.warmRegistrationNanos, config.maxWarmRegistrationNanos);
+        }
+    }
+
+    private List<BindingSpec> generate(int size) {
+        final int width = config.width > 0 ? config.width : Math.max(1, size / config.depth);
+        final int depth = config.width > 0 ? Math.max(1, size / width) : config.depth;
+        final int total = width * depth;
+        final int markers = markerCount(total);
+        final Random random = new Random(size);
+        final List<BindingSpec> specs = Lists.newArrayListWithCapacity(total);
+        int pairs = 0;
+        for (int layer = 0; layer < depth; layer++) {
+            for (int i = 0; i < width; i++) {
+                final int id = specs.size();
+                final int module = id / config.bindingsPerModule;
+                final boolean generic = random.nextDouble() < config.genericRatio;
+                final boolean named = random.nextDouble() < config.namedRatio;
+                final boolean singleton = random.nextDouble() < config.singletonRatio;
+
+                final String type;
+                if (generic) {
+                    final int pair = pairs++;
+                    type = "java.util.Map<" + marker(pair / markers) + ", " +
+                            marker(pair % markers) + '>';
+                } else if (named) {
+                    type = marker(id % markers);
+                } else {
+                    type = PACKAGE + ".Module" + module + ".P" + id;
+                }
+
+                final List<BindingSpec> dependencies = Lists.newArrayList();
+                if (layer > 0) {
+                    for (int f = 0; f < config.fanIn; f++) {
+                        dependencies.add(specs.get((layer - 1) * width + (i + f) % width));
+                    }
+                }
+
+                final String expression =
+                        "new " + type.replace("java.util.Map", "java.util.HashMap") + "()";
+                specs.add(new BindingSpec(id,
+                                          module,
+                                          type,
+                                          named ? "b" + id : null,
+                                          expression,
+                                          singleton,
+                                          dependencies));
+            }
+        }
+        return specs;
+    }
+
+    private static int markerCount(int total) {
+        return (int) Math.ceil(Math.sqrt(total)) + 1;
+    }
+
+    private static String marker(int i) {
+        return PACKAGE + ".Markers.M" + i;
+    }
+
+    private File compile(JavaCompiler compiler, List<BindingSpec> specs) throws Exception {
+        final File sources = folder.newFolder("sources-" + specs.size());
+        final File classes = folder.newFolder("classes-" + specs.size());
+        final File packageDir = new File(sources, PACKAGE.replace('.', File.separatorChar));
+        packageDir.mkdirs();
+
+        final Map<Integer, StringBuilder> modules = Maps.newTreeMap();
+        for (BindingSpec spec : specs) {
+            StringBuilder module = modules.get(spec.module);
+            if (module == null) {
+                module = new StringBuilder();
+                module.append("package ").append(PACKAGE).append(";\n\n")
+                      .append("import com.codahale.og.*;\n\n")
+                      .append("public class Module").append(spec.module).append(" {\n");
+                modules.put(spec.module, module);
+            }
+
+            if (spec.isPlain()) {
+                module.append("    public interface I").append(spec.id).append(" {}\n\n")
+                      .append("    public static class P").append(spec.id)
+                      .append(" implements I").append(spec.id).append(" {}\n\n");
+            }
+
+            module.append("    @Provides\n");
+            if (spec.singleton) {
+                module.append("    @Singleton\n");
+            }
+            if (spec.name != null) {
+                module.append("    @Named(\"").append(spec.name).append("\")\n");
+            }
+            module.append("    public ").append(spec.type).append(" b").append(spec.id).append('(');
+            for (int i = 0; i < spec.dependencies.size(); i++) {
+                final BindingSpec dependency = spec.dependencies.get(i);
+                if (i > 0) {
+                    module.append(", ");
+                }
+                if (dependency.name != null) {
+                    module.append("@Named(\"").append(dependency.name).append("\") ");
+                }
+                module.append(dependency.type).append(" p").append(i);
+            }
+            module.append(") {\n        return ").append(spec.expression).append(";\n    }\n\n");
+        }
+
+        final List<File> files = Lists.newArrayList();
+        for (Map.Entry<Integer, StringBuilder> entry : modules.entrySet()) {
+            final File file = new File(packageDir, "Module" + entry.getKey() + ".java");
+            Files.write(entry.getValue().append("}\n"), file, Charsets.UTF_8);
+            files.add(file);
+        }
+
+        final StringBuilder markerSource = new StringBuilder();
+        markerSource.append("package ").append(PACKAGE).append(";\n\npublic class Markers {\n");
+        for (int i = 0; i < markerCount(specs.size()); i++) {
+            markerSource.append("    public static class M").append(i).append(" {}\n");
+        }
+        final File markerFile = new File(packageDir, "Markers.java");
+        Files.write(markerSource.append("}\n"), markerFile, Charsets.UTF_8);
+        files.add(markerFile);
+
+        final File og = new File(ObjectGraph.class.getProtectionDomain()
+                                                  .getCodeSource()
+                                                  .getLocation()
+                                                  .toURI());
+        final StandardJavaFileManager fileManager =
+                compiler.getStandardFileManager(null, null, null);
+        try {
+            final Iterable<? extends JavaFileObject> units =
+                    fileManager.getJavaFileObjectsFromFiles(files);
+            final List<String> options = Arrays.asList("-nowarn",
+                                                       "-proc:none",
+                                                       "-classpath", og.getPath(),
+                                                       "-d", classes.getPath());
+            assertThat(compiler.getTask(null, fileManager, null, options, null, units).call())
+                    .isTrue();
+        } finally {
+            fileManager.close();
+        }
+
+        return classes;
+    }
+
+    private static ClassLoader newClassLoader(File classes) throws Exception {
+        return new URLClassLoader(new URL[]{ classes.toURI().toURL() },
+                                  ObjectGraph.class.getClassLoader());
+    }
+
+    // Every module's methods are looked up before anything is timed, so registration times cover
+    // what Og does rather than the JVM loading the classes the methods mention.
+    private static List<Object> loadModules(ClassLoader loader,
+                                            List<BindingSpec> specs,
+                                            Map<String, Method> methods) throws Exception {
+        final List<Object> modules = Lists.newArrayList();
+        for (BindingSpec spec : specs) {
+            if (modules.size() <= spec.module) {
+                final Object module = loader.loadClass(PACKAGE + ".Module" + spec.module)
+                                            .newInstance();
+                for (Method method : module.getClass().getDeclaredMethods()) {
+                    methods.put(method.getName(), method);
+                }
+                modules.add(module);
+            }
+        }
+        return modules;
+    }
+
+    private Results measure(File classes, List<BindingSpec> specs) throws Exception {
+        final Results results = new Results();
+
+        final ClassLoader loader = newClassLoader(classes);
+        final Map<String, Method> methods = Maps.newHashMap();
+        final List<Object> modules = loadModules(loader, specs, methods);
+
+        final List<TypeToken<?>> tokens = Lists.newArrayListWithCapacity(specs.size());
+        for (BindingSpec spec : specs) {
+            tokens.add(TypeToken.of(methods.get("b" + spec.id).getGenericReturnType()));
+        }
+
+        this.measured = new ObjectGraph();
+        long start = System.nanoTime();
+        for (Object module : modules) {
+            measured.addModule(module);
+        }
+        results.registrationNanos = (System.nanoTime() - start) / (double) specs.size();
+
+        final List<Integer> ids = Lists.newArrayListWithCapacity(specs.size());
+        for (int i = 0; i < specs.size(); i++) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(specs.size()));
+        final List<Integer> sample = ids.subList(0, Math.min(config.samples, ids.size()));
+
+        start = System.nanoTime();
+        for (int id : sample) {
+            assertThat(measured.get(tokens.get(id), specs.get(id).name))
+                    .isNotNull();
+        }
+        results.firstGetNanos = (System.nanoTime() - start) / (double) sample.size();
+
+        measured.preload();
+        int singletons = 0;
+        final List<Integer> singletonSample = Lists.newArrayList();
+        for (BindingSpec spec : specs) {
+            if (spec.singleton) {
+                singletons++;
+                if (singletonSample.size() < sample.size()) {
+                    singletonSample.add(spec.id);
+                }
+            }
+        }
+
+        results.steadyStateNanos = steadyState(measured, specs, tokens, sample);
+        results.singletonSteadyStateNanos = steadyState(measured, specs, tokens, singletonSample);
+
+        final long retainedBySingletons = retainedHeap();
+
+        this.measured = new ObjectGraph();
+        for (Object module : modules) {
+            measured.addModule(module);
+        }
+        final long retainedByBindings = retainedHeap();
+
+        results.bytesPerBinding = retainedByBindings / (double) specs.size();
+        results.bytesPerSingleton = singletons == 0 ? 0 :
+                (retainedBySingletons - retainedByBindings) / (double) singletons;
+
+        measureBoundedGets(loader, modules, specs, ids, results);
+        measureWarmRegistration(classes, modules, specs, results);
+
+        return results;
+    }
+
+    // Only unnamed plain bindings implement an interface, and only those without dependencies or
+    // memoization are sampled, so every get is a scan of all the bindings and not much else.
+    private void measureBoundedGets(ClassLoader loader, List<Object> modules,
+                                    List<BindingSpec> specs, List<Integer> ids,
+                                    Results results) throws Exception {
+        final List<TypeToken<?>> interfaces = Lists.newArrayList();
+        for (int id : ids) {
+            final BindingSpec spec = specs.get(id);
+            if (spec.isPlain() && !spec.singleton && spec.dependencies.isEmpty() &&
+                    interfaces.size() < config.boundedSamples) {
+                interfaces.add(TypeToken.of(loader.loadClass(PACKAGE + ".Module" + spec.module +
+                                                                     "$I" + spec.id)));
+            }
+        }
+        if (interfaces.isEmpty()) {
+            return;
+        }
+
+        final ObjectGraph graph = new ObjectGraph();
+        for (Object module : modules) {
+            graph.addModule(module);
+        }
+
+        final long start = System.nanoTime();
+        for (TypeToken<?> token : interfaces) {
+            assertThat(graph.get(token))
+                    .isNotNull();
+        }
+        results.boundedFirstGetNanos = (System.nanoTime() - start) / (double) interfaces.size();
+
+        for (int i = 0; i < config.boundedIterations; i++) {
+            graph.get(interfaces.get(i % interfaces.size()));
+        }
+
+        final long steadyStart = System.nanoTime();
+        for (int i = 0; i < config.boundedIterations; i++) {
+            graph.get(interfaces.get(i % interfaces.size()));
+        }
+        results.boundedSteadyStateNanos =
+                (System.nanoTime() - steadyStart) / (double) config.boundedIterations;
+    }
+
+    // Records the metadata of one graph, then registers the same modules, loaded by a new class
+    // loader so nothing cached for the first set of classes is reused, using that metadata.
+    private void measureWarmRegistration(File classes, List<Object> modules,
+                                         List<BindingSpec> specs,
+                                         Results results) throws Exception {
+        final File metadata = new File(folder.getRoot(), "og-" + specs.size() + ".metadata");
+        final ObjectGraph recording = new ObjectGraph();
+        recording.loadMetadata(metadata);
+        for (Object module : modules) {
+            recording.addModule(module);
+        }
+        recording.preload();
+        recording.saveMetadata(metadata);
+
+        final List<Object> warmModules = loadModules(newClassLoader(classes),
+                                                     specs,
+                                                     Maps.<String, Method>newHashMap());
+        final ObjectGraph warm = new ObjectGraph();
+        final long start = System.nanoTime();
+        final boolean loaded = warm.loadMetadata(metadata);
+        final long loadEnd = System.nanoTime();
+        for (Object module : warmModules) {
+            warm.addModule(module);
+        }
+        final long end = System.nanoTime();
+
+        assertThat(loaded)
+                .isTrue();
+
+        results.metadataLoadNanos = (loadEnd - start) / (double) specs.size();
+        results.warmRegistrationNanos = (end - start) / (double) specs.size();
+    }
+
+    private double steadyState(ObjectGraph graph, List<BindingSpec> specs,
+                               List<TypeToken<?>> tokens, List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        for (int i = 0; i < config.iterations; i++) {
+            final int id = ids.get(i % ids.size());
+            graph.get(tokens.get(id), specs.get(id).name);
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < config.iterations; i++) {
+            final int id = ids.get(i % ids.size());
+            graph.get(tokens.get(id), specs.get(id).name);
+        }
+        return (System.nanoTime() - start) / (double) config.iterations;
+    }
+
+    // Caches come and go with the GC, so rather than comparing the heap before and after building
+    // a graph, compare it before and after releasing an already-built graph.
+    private long retainedHeap() throws InterruptedException {
+        final long with = usedHeap();
+        this.measured = null;
+        return with - usedHeap();
+    }
+
+    // collect garbage until the used heap stops shrinking
+    private static long usedHeap() throws InterruptedException {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(50);
+            final long current = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                return current;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+    private static void checkLimit(double value, double limit) {
+        if (limit > 0) {
+            assertThat(value)
+                    .isLessThanOrEqualTo(limit);
+        }
+    }
+}
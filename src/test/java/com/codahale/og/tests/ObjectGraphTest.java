@@ -3,6 +3,7 @@ package com.codahale.og.tests;
 import com.codahale.og.*;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeParameter;
 import com.google.common.reflect.TypeToken;
 import org.junit.Before;
 import org.junit.Test;
@@ -70,6 +71,13 @@ public class ObjectGraphTest {
         }
     }
 
+    private static class PrimitiveParameterModule {
+        @Provides
+        public Long getLong(int i) {
+            return (long) i;
+        }
+    }
+
     private static class FirstLongModule {
         @Provides
         public Long getString() {
@@ -126,6 +134,56 @@ public class ObjectGraphTest {
         }
     }
 
+    public static class Greeter {
+        private final String greeting;
+        private final List<String> names;
+
+        @Inject
+        public Greeter(@Named("thingy") String greeting, List<String> names) {
+            this.greeting = greeting;
+            this.names = names;
+        }
+
+        public String greet() {
+            return greeting + ' ' + names.get(0);
+        }
+    }
+
+    @Singleton
+    public static class SingletonGreeter {
+        @Inject
+        SingletonGreeter() {
+        }
+    }
+
+    public static class NotInjectable {
+        public NotInjectable() {
+        }
+    }
+
+    public static class Base {
+        @Inject
+        public Base() {
+        }
+    }
+
+    public static class Sub extends Base {
+    }
+
+    private static class GreeterModule {
+        @Provides
+        public Greeter getGreeter() {
+            return new Greeter("hi", ImmutableList.of("there"));
+        }
+    }
+
+    private static class SubModule {
+        @Provides
+        public Sub getSub() {
+            return new Sub();
+        }
+    }
+
     private final ObjectGraph graph = new ObjectGraph();
 
     private final ListModule listModule = new ListModule();
@@ -176,6 +234,14 @@ public class ObjectGraphTest {
                 .isEqualTo(ImmutableMap.of("woo", 3));
     }
 
+    @Test
+    public void providesTypesRequestedWithDistinctTypeObjects() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            assertThat(graph.get(listOf(String.class)))
+                    .containsOnly("woo");
+        }
+    }
+
     @Test
     public void providesNamedTypes() throws Exception {
         assertThat(graph.get(String.class, "thingy"))
@@ -219,6 +285,21 @@ public class ObjectGraphTest {
         }
     }
 
+    @Test
+    public void reportsTheDeclaredTypesOfUnprovidableParameters() throws Exception {
+        graph.addModule(new PrimitiveParameterModule());
+        try {
+            graph.get(Long.class);
+            failBecauseExceptionWasNotThrown(DependencyException.class);
+        } catch (DependencyException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Unable to provide a java.lang.Long");
+
+            assertThat(e.getCause().getMessage())
+                    .isEqualTo("Unable to provide a int");
+        }
+    }
+
     @Test
     public void providesSuperclassTypes() throws Exception {
         assertThat(graph.get(new TypeToken<List<Integer>>() {}))
@@ -315,4 +396,65 @@ public class ObjectGraphTest {
         assertThat(graph.get(char.class))
                 .isEqualTo('A');
     }
+
+    @Test
+    public void providesClassesWithInjectableConstructors() throws Exception {
+        assertThat(graph.get(Greeter.class).greet())
+                .isEqualTo("yay woo");
+    }
+
+    @Test
+    public void memoizesSingletonAnnotatedClasses() throws Exception {
+        assertThat(graph.get(SingletonGreeter.class))
+                .isSameAs(graph.get(SingletonGreeter.class));
+
+        assertThat(graph.get(Greeter.class))
+                .isNotSameAs(graph.get(Greeter.class));
+    }
+
+    @Test
+    public void doesNotProvideClassesWithoutInjectableConstructors() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                graph.get(NotInjectable.class);
+                failBecauseExceptionWasNotThrown(DependencyException.class);
+            } catch (DependencyException e) {
+                assertThat(e.getMessage())
+                        .isEqualTo("Unable to provide a " + NotInjectable.class.getName());
+            }
+        }
+    }
+
+    @Test
+    public void prefersSingletonsToInjectableConstructors() throws Exception {
+        final Greeter greeter = new Greeter("hi", ImmutableList.of("there"));
+        graph.addSingleton(greeter);
+
+        assertThat(graph.get(Greeter.class))
+                .isSameAs(greeter);
+    }
+
+    @Test
+    public void prefersModulesToInjectableConstructors() throws Exception {
+        graph.addModule(new GreeterModule());
+
+        assertThat(graph.get(Greeter.class).greet())
+                .isEqualTo("hi there");
+    }
+
+    @Test
+    public void prefersModuleSubtypesToInjectableConstructors() throws Exception {
+        assertThat(graph.get(Base.class).getClass())
+                .isEqualTo(Base.class);
+
+        graph.addModule(new SubModule());
+
+        assertThat(graph.get(Base.class).getClass())
+                .isEqualTo(Sub.class);
+    }
+
+    // builds a new Type object every time
+    private static <T> TypeToken<List<T>> listOf(Class<T> klass) {
+        return new TypeToken<List<T>>() {}.where(new TypeParameter<T>() {}, klass);
+    }
 }